@@ -0,0 +1,496 @@
+/******************************************************************************
+ *  Compilation:  javac ConcurrentRandomizedQueue.java
+ *  Execution:    java ConcurrentRandomizedQueue [threads] [operations] [shards]
+ *  Dependencies: StdOut.java Stopwatch.java RandomizedQueue.java
+ *
+ *  A thread-safe randomized queue, implemented using an array of
+ *  independently locked resizing-array shards.
+ *  Each queue element is of type Item.
+ *
+ *
+ ******************************************************************************/
+
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.Stopwatch;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@code ConcurrentRandomizedQueue} class represents a randomized queue
+ * of generic items that may be shared by many producer and consumer threads
+ * without external locking. It supports the same <em>enqueue</em>,
+ * <em>dequeue</em> and <em>sample</em> operations as
+ * {@link RandomizedQueue}, along with methods for testing if the queue is
+ * empty, and iterating through the items in random order.
+ * <p>
+ * This implementation splits the items over a fixed number of shards, each
+ * a resizing array guarded by its own monitor and padded to keep shards off
+ * each other's cache lines. An enqueue adds to the smaller of two random
+ * shards, which keeps the shard sizes close together. A dequeue draws a
+ * shard and a slot below a shared bound B on the shard sizes uniformly at
+ * random; if the slot holds an item, that item is removed with the same
+ * swap-with-last step used by {@link RandomizedQueue}, otherwise the draw
+ * is rejected and repeated, which also takes items from other shards once
+ * the drawn one runs empty. Enqueues raise B when a shard outgrows it, and
+ * after 2S rejections in a row a dequeue rescans the S shards and lowers B
+ * to the largest size. A draw reads one shard size and B, so its cost does
+ * not grow with the shard count; the expected number of draws is
+ * S&middot;B/n, close to 1 while the shards are balanced and at most S
+ * right after a rescan.
+ * <p>
+ * Selection bounds: each draw returns every item with the same probability
+ * 1/(S&middot;B), so when no other thread modifies the queue during a
+ * <em>dequeue</em> or <em>sample</em> every item is chosen with probability
+ * exactly 1/n, for any n and any number of shards. Under concurrent
+ * modification a draw sees the queue as it is when the shard's lock is
+ * taken; items only miss out while B briefly trails a shard that has just
+ * grown past it, until the next enqueue or rejected draw raises it.
+ * <p>
+ * Whether striping beats a single lock depends on the host: {@code main}
+ * compares the two for a given thread and shard count, and should be run
+ * on the target machine before relying on it.
+ * <p>
+ * The <em>size</em>, <em>isEmpty</em> and <em>iterator</em> operations are
+ * weakly consistent: they see each shard at a possibly different instant.
+ *
+ * @param <Item> the generic type of item in this queue
+ * @author Xue Zhang
+ */
+public class ConcurrentRandomizedQueue<Item> implements Iterable<Item> {
+
+    private static final int INIT_CAPACITY = 8;
+
+    private final Shard<Item>[] shards;
+    // at least the size of every shard whenever no operation is running
+    private final AtomicInteger bound = new AtomicInteger();
+
+    /**
+     * Initializes an empty queue with one shard per available processor.
+     */
+    public ConcurrentRandomizedQueue() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Initializes an empty queue with the given number of shards.
+     *
+     * @param shardCount the number of independently locked shards
+     * @throws IllegalArgumentException if {@code shardCount <= 0}
+     */
+    public ConcurrentRandomizedQueue(int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("the number of shards should be greater than 0");
+        }
+        shards = (Shard<Item>[]) new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard<>();
+        }
+    }
+
+    /**
+     * The hot fields of a shard. They live in a superclass so that the JVM
+     * lays them out before the padding declared in {@link Shard}.
+     */
+    private static class ShardFields<Item> {
+        Item[] a = (Item[]) new Object[INIT_CAPACITY];
+        volatile int n;
+        // changes on every enqueue and dequeue, so an empty scan can be validated
+        volatile int version;
+    }
+
+    /**
+     * One resizing-array randomized queue, locked on its own monitor. The
+     * trailing padding keeps the next shard's header and fields at least
+     * 128 bytes away, covering adjacent-line prefetch.
+     */
+    private static final class Shard<Item> extends ShardFields<Item> {
+        long p1, p2, p3, p4, p5, p6, p7, p8, p9, p10, p11, p12, p13, p14, p15, p16;
+
+        private void resize(int capacity) {
+            Item[] newArray = (Item[]) new Object[capacity];
+            for (int i = 0; i < n; i++) {
+                newArray[i] = a[i];
+            }
+            a = newArray;
+        }
+
+        private void enqueue(Item item) {
+            if (n == a.length) {
+                resize(a.length * 2);
+            }
+            a[n] = item;
+            n = n + 1;
+            version = version + 1;
+        }
+
+        private Item dequeue(int index) {
+            int last = n - 1;
+            Item removeItem = a[index];
+            a[index] = a[last];
+            a[last] = null;
+            n = last;
+            version = version + 1;
+            if (last > 0 && last == a.length / 4) {
+                resize(a.length / 2);
+            }
+            return removeItem;
+        }
+    }
+
+    /**
+     * Is the queue empty?
+     *
+     * @return true if no shard held an item when it was inspected; false otherwise
+     */
+    public boolean isEmpty() {
+        for (Shard<Item> shard : shards) {
+            if (shard.n > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of items on the queue.
+     *
+     * @return the sum of the shard sizes, each read at a possibly different instant
+     */
+    public int size() {
+        int total = 0;
+        for (Shard<Item> shard : shards) {
+            total += shard.n;
+        }
+        return total;
+    }
+
+    /**
+     * Adds the item to the smaller of two random shards.
+     *
+     * @param item the item to add
+     * @throws IllegalArgumentException if the item is null
+     */
+    public void enqueue(Item item) {
+        if (item == null) {
+            throw new IllegalArgumentException("Element e can't be null");
+        }
+        // one draw for both shards; the modulo bias only affects balance
+        int r = ThreadLocalRandom.current().nextInt() & Integer.MAX_VALUE;
+        Shard<Item> first = shards[(r >>> 16) % shards.length];
+        Shard<Item> second = shards[(r & 0xFFFF) % shards.length];
+        Shard<Item> shard = first.n <= second.n ? first : second;
+        int size;
+        synchronized (shard) {
+            shard.enqueue(item);
+            size = shard.n;
+        }
+        raiseBound(size);
+    }
+
+    /**
+     * Removes and returns a random item on this queue.
+     *
+     * @return a random item on this queue
+     * @throws NoSuchElementException if the queue was empty at some instant
+     *                                during the call
+     */
+    public Item dequeue() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Item item = poll(random, true);
+        while (item == null) {
+            int[] versions = versions();
+            item = poll(random, true);
+            if (item == null && unchanged(versions)) {
+                throw new NoSuchElementException("The randomized queue is underflow.");
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Returns a random item (but do not remove it).
+     *
+     * @return a random item on this queue
+     * @throws NoSuchElementException if the queue was empty at some instant
+     *                                during the call
+     */
+    public Item sample() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Item item = poll(random, false);
+        while (item == null) {
+            int[] versions = versions();
+            item = poll(random, false);
+            if (item == null && unchanged(versions)) {
+                throw new NoSuchElementException("the randomized queue is underflow.");
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Draws a shard and a slot below the bound until the slot holds an item,
+     * and takes that item.
+     *
+     * @return the item, or null if a rescan saw every shard empty
+     */
+    private Item poll(ThreadLocalRandom random, boolean remove) {
+        int rejections = 0;
+        while (true) {
+            int b = bound.get();
+            if (b == 0) {
+                if (!shrinkBound()) {
+                    return null;
+                }
+                continue;
+            }
+            Shard<Item> shard;
+            int slot;
+            if (b <= Integer.MAX_VALUE / shards.length) {
+                int r = random.nextInt(shards.length * b);
+                shard = shards[r / b];
+                slot = r % b;
+            } else {
+                long r = random.nextLong((long) shards.length * b);
+                shard = shards[(int) (r / b)];
+                slot = (int) (r % b);
+            }
+            int size = shard.n;
+            if (slot < size) {
+                synchronized (shard) {
+                    if (slot < shard.n) {
+                        return remove ? shard.dequeue(slot) : shard.a[slot];
+                    }
+                }
+            } else if (size > b) {
+                raiseBound(size);
+                rejections = 0;
+                continue;
+            }
+            if (++rejections >= 2 * shards.length) {
+                rejections = 0;
+                if (!shrinkBound()) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Raises the bound to at least the given shard size.
+     */
+    private void raiseBound(int size) {
+        int b = bound.get();
+        while (b < size && !bound.compareAndSet(b, size)) {
+            b = bound.get();
+        }
+    }
+
+    /**
+     * Lowers the bound to the largest shard size. The shards are scanned
+     * again after lowering: an enqueue that grew a shard past the new bound
+     * either sees the lowered bound and raises it, or is seen by this scan.
+     *
+     * @return false if the second scan saw every shard empty
+     */
+    private boolean shrinkBound() {
+        int b = bound.get();
+        int max = maxSize();
+        if (max < b) {
+            bound.compareAndSet(b, max);
+        }
+        max = maxSize();
+        raiseBound(max);
+        return max > 0;
+    }
+
+    /**
+     * Returns the largest shard size, each read at a possibly different instant.
+     */
+    private int maxSize() {
+        int max = 0;
+        for (Shard<Item> shard : shards) {
+            max = Math.max(max, shard.n);
+        }
+        return max;
+    }
+
+    /**
+     * Returns the current version of every shard.
+     */
+    private int[] versions() {
+        int[] versions = new int[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            versions[i] = shards[i].version;
+        }
+        return versions;
+    }
+
+    /**
+     * Returns true if no shard changed since the versions were read. Each
+     * shard then stayed empty from that read until now, so the whole queue
+     * was empty at the instant this check began.
+     */
+    private boolean unchanged(int[] versions) {
+        for (int i = 0; i < shards.length; i++) {
+            if (shards[i].version != versions[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns an independent iterator over items in random order. The
+     * iterator works on a copy of the shards taken one shard at a time.
+     *
+     * @return an independent iterator over items in random order
+     */
+    public Iterator<Item> iterator() {
+        return new RandomizedIterator();
+    }
+
+    private class RandomizedIterator implements Iterator<Item> {
+
+        private Item[] copiedArray;
+        private int copiedLastIndex;
+
+        RandomizedIterator() {
+            Item[] array = (Item[]) new Object[INIT_CAPACITY];
+            int j = 0;
+            for (Shard<Item> shard : shards) {
+                synchronized (shard) {
+                    if (j + shard.n > array.length) {
+                        Item[] newArray = (Item[]) new Object[Math.max(array.length * 2, j + shard.n)];
+                        System.arraycopy(array, 0, newArray, 0, j);
+                        array = newArray;
+                    }
+                    System.arraycopy(shard.a, 0, array, j, shard.n);
+                    j += shard.n;
+                }
+            }
+            copiedArray = array;
+            copiedLastIndex = j - 1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return copiedLastIndex >= 0;
+        }
+
+        @Override
+        public Item next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more item.");
+            }
+            int i = ThreadLocalRandom.current().nextInt(copiedLastIndex + 1);
+            Item item = copiedArray[i];
+            copiedArray[i] = copiedArray[copiedLastIndex];
+            copiedArray[copiedLastIndex--] = null;
+            return item;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Remove unsupported. ");
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[");
+        for (Item item : this) {
+            sb.append(item);
+            sb.append(",");
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+
+    /**
+     * Runs {@code operations} enqueue/dequeue pairs on each of
+     * {@code threads} threads and returns the elapsed seconds.
+     */
+    private static double contend(int threads, final int operations, final Runnable pair)
+            throws InterruptedException {
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < operations; i++) {
+                        pair.run();
+                    }
+                }
+            });
+        }
+        Stopwatch stopwatch = new Stopwatch();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return stopwatch.elapsedTime();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        ConcurrentRandomizedQueue<Integer> queue = new ConcurrentRandomizedQueue<>();
+        StdOut.println(queue.size());
+        StdOut.println(queue.isEmpty());
+        for (int i = 1; i <= 5; i++) {
+            queue.enqueue(i);
+        }
+        StdOut.println(queue);
+        StdOut.println("The total size = " + queue.size());
+        StdOut.println(queue.dequeue());
+        StdOut.println(queue.dequeue());
+        StdOut.println(queue);
+        StdOut.println("The total size = " + queue.size());
+
+        // contention check against a RandomizedQueue behind a single lock
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+                : Runtime.getRuntime().availableProcessors();
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        int shardCount = args.length > 2 ? Integer.parseInt(args[2]) : maxThreads;
+        final ConcurrentRandomizedQueue<Integer> striped = new ConcurrentRandomizedQueue<>(shardCount);
+        final RandomizedQueue<Integer> locked = new RandomizedQueue<>();
+        for (int i = 0; i < 1024; i++) {
+            striped.enqueue(i);
+            locked.enqueue(i);
+        }
+        Runnable stripedPair = new Runnable() {
+            public void run() {
+                striped.enqueue(striped.dequeue());
+            }
+        };
+        Runnable lockedPair = new Runnable() {
+            public void run() {
+                synchronized (locked) {
+                    locked.enqueue(locked.dequeue());
+                }
+            }
+        };
+        // warm up both before timing, so neither run pays for the JIT
+        contend(maxThreads, operations, stripedPair);
+        contend(maxThreads, operations, lockedPair);
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double stripedTime = Double.POSITIVE_INFINITY;
+            double lockedTime = Double.POSITIVE_INFINITY;
+            // alternate which queue runs first and keep the best of three
+            for (int round = 0; round < 3; round++) {
+                if (round % 2 == 0) {
+                    stripedTime = Math.min(stripedTime, contend(threads, operations, stripedPair));
+                    lockedTime = Math.min(lockedTime, contend(threads, operations, lockedPair));
+                } else {
+                    lockedTime = Math.min(lockedTime, contend(threads, operations, lockedPair));
+                    stripedTime = Math.min(stripedTime, contend(threads, operations, stripedPair));
+                }
+            }
+            StdOut.printf("%2d threads, %d shards: striped %.3fs, single lock %.3fs%n",
+                          threads, shardCount, stripedTime, lockedTime);
+        }
+    }
+}
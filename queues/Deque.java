@@ -11,8 +11,12 @@
 
 import edu.princeton.cs.algs4.StdOut;
 
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.StreamSupport;
 
 /**
  * The {@code Deque} class represents both a last-in-first-out (LIFO) stack of
@@ -42,6 +46,8 @@ public class Deque<Item> implements Iterable<Item> {
     }
 
     private int n;
+    // number of structural changes, checked by the spliterator
+    private int modCount;
     private final Node head;
     private final Node tail;
 
@@ -90,6 +96,7 @@ public class Deque<Item> implements Iterable<Item> {
         head.next.pre = node;
         head.next = node;
         n++;
+        modCount++;
     }
 
     /**
@@ -109,6 +116,7 @@ public class Deque<Item> implements Iterable<Item> {
         tail.pre = node;
         pre.next = node;
         n++;
+        modCount++;
     }
 
     /**
@@ -126,6 +134,7 @@ public class Deque<Item> implements Iterable<Item> {
         head.next = next.next;
         next.next.pre = head;
         n--;
+        modCount++;
         return item;
     }
 
@@ -143,6 +152,7 @@ public class Deque<Item> implements Iterable<Item> {
         tail.pre = pre.pre;
         pre.pre.next = tail;
         n--;
+        modCount++;
         return pre.item;
     }
 
@@ -187,6 +197,140 @@ public class Deque<Item> implements Iterable<Item> {
         }
     }
 
+    /**
+     * Returns a sized spliterator over items in order from front to back.
+     * The spliterator binds to the deque on its first traversal, split or
+     * size query, and throws {@link ConcurrentModificationException} once
+     * it notices the deque was changed after that. The first split copies
+     * the remaining items into an array in one walk of the list; from then
+     * on every split halves an index range of that array, so parallel
+     * streams divide the work evenly after that single sequential copy.
+     *
+     * @return a spliterator over items in order from front to back
+     */
+    @Override
+    public Spliterator<Item> spliterator() {
+        return new LinkedSpliterator();
+    }
+
+    private class LinkedSpliterator implements Spliterator<Item> {
+
+        // walks the list until the first split, then covers items[index, fence)
+        private Node cur;
+        private Object[] items;
+        private int index;
+        private int fence;
+        private int est = -1;
+        private int expectedModCount;
+
+        LinkedSpliterator() {
+        }
+
+        LinkedSpliterator(Object[] items, int index, int fence, int expectedModCount) {
+            this.items = items;
+            this.index = index;
+            this.fence = fence;
+            this.est = fence - index;
+            this.expectedModCount = expectedModCount;
+        }
+
+        private int getEst() {
+            if (est < 0) {
+                cur = head.next;
+                est = n;
+                expectedModCount = modCount;
+            }
+            return est;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Item> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            if (getEst() == 0 || (items == null && cur == tail)) {
+                return false;
+            }
+            Item item;
+            if (items != null) {
+                item = (Item) items[index++];
+            } else {
+                item = cur.item;
+                cur = cur.next;
+            }
+            est--;
+            action.accept(item);
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Item> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            int remaining = getEst();
+            if (items != null) {
+                while (index < fence) {
+                    action.accept((Item) items[index++]);
+                }
+            } else {
+                while (remaining > 0 && cur != tail) {
+                    Item item = cur.item;
+                    cur = cur.next;
+                    remaining--;
+                    action.accept(item);
+                }
+            }
+            est = 0;
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        @Override
+        public Spliterator<Item> trySplit() {
+            int remaining = getEst();
+            if (items == null) {
+                if (remaining <= 1 || cur == tail) {
+                    return null;
+                }
+                Object[] array = new Object[remaining];
+                int j = 0;
+                while (j < remaining && cur != tail) {
+                    array[j++] = cur.item;
+                    cur = cur.next;
+                }
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                items = array;
+                index = 0;
+                fence = j;
+            }
+            int mid = (index + fence) >>> 1;
+            if (mid <= index) {
+                return null;
+            }
+            Spliterator<Item> prefix = new LinkedSpliterator(items, index, mid, expectedModCount);
+            index = mid;
+            est = fence - index;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return getEst();
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL;
+        }
+    }
+
     public static void main(String[] args) {
         StdOut.println("Test begin");
         Deque<Integer> dq = new Deque<>();
@@ -209,6 +353,11 @@ public class Deque<Item> implements Iterable<Item> {
         StdOut.println(dq.removeLast());
         StdOut.println(dq);
         StdOut.println("The size of current deque is " + dq.size());
+        for (int i = 0; i < 100; i++) {
+            dq.addLast(i);
+        }
+        StdOut.println("Parallel sum = "
+                       + StreamSupport.stream(dq.spliterator(), true).mapToInt(Integer::intValue).sum());
     }
 
 
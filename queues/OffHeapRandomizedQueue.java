@@ -0,0 +1,466 @@
+/******************************************************************************
+ *  Compilation:  javac OffHeapRandomizedQueue.java
+ *  Execution:    java OffHeapRandomizedQueue
+ *  Dependencies: StdOut.java StdRandom.java
+ *
+ *  A randomized queue of strings, implemented using an off-heap byte arena
+ *  and a resizing array of offsets.
+ *
+ *
+ ******************************************************************************/
+
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The {@code OffHeapRandomizedQueue} class represents a randomized queue of
+ * strings. It supports the same <em>enqueue</em>, <em>dequeue</em> and
+ * <em>sample</em> operations as {@link RandomizedQueue}, along with methods
+ * for testing if the queue is empty, and iterating through the items in
+ * random order.
+ * <p>
+ * This implementation does not keep a {@code String} object per item on the
+ * heap. Each item is stored as modified UTF-8 bytes, prefixed by their
+ * length, in direct {@link ByteBuffer} chunks allocated outside the Java
+ * heap. Modified UTF-8, the encoding of {@code DataOutput.writeUTF}, encodes
+ * every {@code char} on its own, so any string, including one holding an
+ * unpaired surrogate, comes back equal to the one enqueued. Items without
+ * a NUL or surrogate char, whose modified UTF-8 bytes are also standard
+ * UTF-8, go through the platform UTF-8 codec; the others are flagged in
+ * their length prefix and encoded and decoded char by char. The only
+ * heap structure that grows with the queue is a resizing {@code long[]} of
+ * item offsets. A dequeue picks a random offset and removes it with the same
+ * swap-with-last step used by {@link RandomizedQueue}; the item is decoded
+ * to a {@code String} only then.
+ * <p>
+ * Space left behind by removed items is reclaimed by compacting the arena
+ * in place once live bytes fall to a quarter of the bytes written,
+ * mirroring the array shrinking rule: the offsets are sorted and the live
+ * records slid down through the existing chunks. Draining the queue resets
+ * the chunks instead of dropping them. Chunks are therefore allocated only
+ * while the arena grows past its previous high-water mark and are never
+ * handed back before the queue itself becomes garbage, so a long-lived
+ * queue does not keep direct-memory reservations pending on a GC.
+ * <p>
+ * Off-heap memory is bounded by {@code -XX:MaxDirectMemorySize}, not by
+ * {@code -Xmx}.
+ *
+ * @author Xue Zhang
+ */
+public class OffHeapRandomizedQueue implements Iterable<String> {
+
+    private static final int INIT_CAPACITY = 8;
+    private static final int INIT_CHUNK_SIZE = 1 << 12;
+    private static final int MAX_CHUNK_SIZE = 1 << 26;
+    private static final int LENGTH_BYTES = 4;
+    // set in the length prefix of items holding a NUL or a surrogate char
+    private static final int MODIFIED = 0x80000000;
+
+    private long[] offsets;
+    private int lastIndex;
+
+    private ByteBuffer[] chunks;
+    private int chunkCount;
+    private int current;
+    private long usedBytes;
+    private long liveBytes;
+
+    // reused to encode and decode one item, grown to the longest seen
+    private byte[] scratch = new byte[INIT_CHUNK_SIZE];
+
+    // incremented whenever existing offsets stop being valid
+    private int generation;
+
+    public OffHeapRandomizedQueue() {
+        lastIndex = -1;
+        offsets = new long[INIT_CAPACITY];
+        chunks = new ByteBuffer[INIT_CAPACITY];
+    }
+
+    /**
+     * Is the randomized queue empty?
+     *
+     * @return true if this randomized queue is empty; false otherwise
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Return the number of items on the randomized queue.
+     *
+     * @return the number of items on the randomized queue
+     */
+    public int size() {
+        return lastIndex + 1;
+    }
+
+    /**
+     * Resize the offset array
+     *
+     * @param capacity the length of the new array
+     */
+    private void resize(int capacity) {
+        long[] newArray = new long[capacity];
+        System.arraycopy(offsets, 0, newArray, 0, lastIndex + 1);
+        offsets = newArray;
+    }
+
+    /**
+     * Returns the chunk the next record of the given size is written to:
+     * the current chunk if it has room, else the next reused chunk with
+     * room, else a newly allocated chunk.
+     */
+    private ByteBuffer chunkFor(int need) {
+        for (; current < chunkCount; current++) {
+            if (chunks[current].remaining() >= need) {
+                return chunks[current];
+            }
+        }
+        int chunkSize = chunkCount == 0 ? INIT_CHUNK_SIZE
+                : Math.min(chunks[chunkCount - 1].capacity() * 2, MAX_CHUNK_SIZE);
+        ByteBuffer chunk = ByteBuffer.allocateDirect(Math.max(chunkSize, need));
+        if (chunkCount == chunks.length) {
+            ByteBuffer[] newChunks = new ByteBuffer[chunks.length * 2];
+            System.arraycopy(chunks, 0, newChunks, 0, chunkCount);
+            chunks = newChunks;
+        }
+        chunks[chunkCount++] = chunk;
+        current = chunkCount - 1;
+        return chunk;
+    }
+
+    /**
+     * Returns the number of bytes the item takes in modified UTF-8.
+     */
+    private static long encodedLength(String item) {
+        long length = 0;
+        for (int i = 0; i < item.length(); i++) {
+            char c = item.charAt(i);
+            if (c != 0 && c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Appends the item to the arena as its length in bytes followed by its
+     * bytes: standard UTF-8 from the platform encoder when the item holds no
+     * NUL or surrogate char, else modified UTF-8 with the flag set.
+     *
+     * @return the offset of the item, chunk index in the high 32 bits and
+     * position in the low 32 bits
+     */
+    private long append(String item) {
+        for (int i = 0; i < item.length(); i++) {
+            char c = item.charAt(i);
+            if (c == 0 || Character.isSurrogate(c)) {
+                return appendModified(item);
+            }
+        }
+        byte[] bytes = item.getBytes(StandardCharsets.UTF_8);
+        return append(bytes, bytes.length, 0);
+    }
+
+    /**
+     * Appends the item in modified UTF-8, which keeps NUL and unpaired
+     * surrogate chars that standard UTF-8 would replace.
+     */
+    private long appendModified(String item) {
+        // three bytes per char always suffice; count exactly only when that overflows
+        long length = 3L * item.length();
+        if (length > Integer.MAX_VALUE - LENGTH_BYTES) {
+            length = encodedLength(item);
+            if (length > Integer.MAX_VALUE - LENGTH_BYTES) {
+                throw new IllegalArgumentException("the item is too long to store");
+            }
+        }
+        byte[] bytes = scratch((int) length);
+        int j = 0;
+        for (int i = 0; i < item.length(); i++) {
+            char c = item.charAt(i);
+            if (c != 0 && c < 0x80) {
+                bytes[j++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[j++] = (byte) (0xC0 | (c >> 6));
+                bytes[j++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                bytes[j++] = (byte) (0xE0 | (c >> 12));
+                bytes[j++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[j++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return append(bytes, j, MODIFIED);
+    }
+
+    /**
+     * Appends the first length bytes as one record, with the flag or-ed
+     * into its length prefix.
+     */
+    private long append(byte[] bytes, int length, int flag) {
+        if (length > Integer.MAX_VALUE - LENGTH_BYTES) {
+            throw new IllegalArgumentException("the item is too long to store");
+        }
+        int need = LENGTH_BYTES + length;
+        ByteBuffer chunk = chunkFor(need);
+        long offset = ((long) current << 32) | chunk.position();
+        chunk.putInt(length | flag);
+        chunk.put(bytes, 0, length);
+        usedBytes += need;
+        liveBytes += need;
+        return offset;
+    }
+
+    /**
+     * Returns the scratch array, grown to hold at least the given length.
+     */
+    private byte[] scratch(int length) {
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        return scratch;
+    }
+
+    /**
+     * Returns the number of arena bytes the record at the given offset takes.
+     */
+    private int recordSize(long offset) {
+        return LENGTH_BYTES + (chunks[(int) (offset >>> 32)].getInt((int) offset) & ~MODIFIED);
+    }
+
+    /**
+     * Decodes the item stored at the given offset.
+     */
+    private String read(long offset) {
+        ByteBuffer chunk = chunks[(int) (offset >>> 32)].duplicate();
+        int position = (int) offset;
+        int prefix = chunk.getInt(position);
+        int length = prefix & ~MODIFIED;
+        byte[] bytes = scratch(length);
+        chunk.position(position + LENGTH_BYTES);
+        chunk.get(bytes, 0, length);
+        if ((prefix & MODIFIED) == 0) {
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+        char[] chars = new char[length];
+        int count = 0;
+        int i = 0;
+        while (i < length) {
+            int b = bytes[i++] & 0xFF;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+            } else if (b < 0xE0) {
+                chars[count++] = (char) (((b & 0x1F) << 6) | (bytes[i++] & 0x3F));
+            } else {
+                int b2 = bytes[i++] & 0x3F;
+                chars[count++] = (char) (((b & 0x0F) << 12) | (b2 << 6) | (bytes[i++] & 0x3F));
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    /**
+     * Copies length bytes between chunks with absolute gets and puts. The
+     * regions may overlap as long as the destination does not start after
+     * the source, because every word is read before anything past it is
+     * written.
+     */
+    private static void copy(ByteBuffer from, int fromPosition, ByteBuffer to, int toPosition, int length) {
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            to.putLong(toPosition + i, from.getLong(fromPosition + i));
+        }
+        for (; i < length; i++) {
+            to.put(toPosition + i, from.get(fromPosition + i));
+        }
+    }
+
+    /**
+     * Slides the live records down through the existing chunks, dropping the
+     * space left behind by removed items, and rewrites their offsets.
+     * Sorting the offsets first means every record moves to an address no
+     * later than its own: a record that does not fit in the chunk being
+     * filled came from a later chunk, and that chunk or an earlier one after
+     * the chunk being filled is big enough for it.
+     */
+    private void compact() {
+        Arrays.sort(offsets, 0, lastIndex + 1);
+        int to = 0;
+        int toPosition = 0;
+        for (int i = 0; i <= lastIndex; i++) {
+            ByteBuffer from = chunks[(int) (offsets[i] >>> 32)];
+            int fromPosition = (int) offsets[i];
+            int need = LENGTH_BYTES + (from.getInt(fromPosition) & ~MODIFIED);
+            if (chunks[to].capacity() - toPosition < need) {
+                do {
+                    to++;
+                } while (chunks[to].capacity() < need);
+                toPosition = 0;
+            }
+            copy(from, fromPosition, chunks[to], toPosition, need);
+            offsets[i] = ((long) to << 32) | toPosition;
+            toPosition += need;
+        }
+        for (int c = to + 1; c < chunkCount; c++) {
+            chunks[c].clear();
+        }
+        chunks[to].position(toPosition);
+        current = to;
+        usedBytes = liveBytes;
+        generation++;
+    }
+
+    /**
+     * Adds the item to this randomized queue.
+     *
+     * @param item the item to add
+     * @throws IllegalArgumentException if the item is null, or longer than
+     *                                  {@code Integer.MAX_VALUE - 4} bytes
+     *                                  in modified UTF-8
+     */
+    public void enqueue(String item) {
+        if (item == null) {
+            throw new IllegalArgumentException("Element e can't be null");
+        }
+        if (lastIndex + 1 == offsets.length) {
+            resize(offsets.length * 2);
+        }
+        long offset = append(item);
+        offsets[++lastIndex] = offset;
+    }
+
+    /**
+     * Removes and returns a random item on this randomized queue
+     *
+     * @return a random item on this queue
+     * @throws java.util.NoSuchElementException if this queue is empty
+     */
+    public String dequeue() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("The randomized queue is underflow.");
+        }
+        int index = StdRandom.uniform(lastIndex + 1);
+        String item = read(offsets[index]);
+        liveBytes -= recordSize(offsets[index]);
+        offsets[index] = offsets[lastIndex--];
+        if (isEmpty()) {
+            for (int c = 0; c < chunkCount; c++) {
+                chunks[c].clear();
+            }
+            current = 0;
+            usedBytes = 0;
+            generation++;
+        } else if (liveBytes <= usedBytes / 4) {
+            compact();
+        }
+        if (size() > 0 && size() == offsets.length / 4) {
+            resize(offsets.length / 2);
+        }
+        return item;
+    }
+
+    /**
+     * Returns a random item (but do not remove it).
+     *
+     * @return a random item on the randomized queue
+     * @throws java.util.NoSuchElementException if this queue is empty
+     */
+    public String sample() {
+        if (isEmpty()) {
+            throw new NoSuchElementException("the randomized queue is underflow.");
+        }
+        return read(offsets[StdRandom.uniform(lastIndex + 1)]);
+    }
+
+    /**
+     * Returns an iterator over items in random order. The iterator copies
+     * only the offsets and decodes each item from the arena as it is
+     * returned, so it stops being valid once a dequeue reclaims arena space.
+     *
+     * @return an iterator over items in random order
+     */
+    public Iterator<String> iterator() {
+        return new RandomizedIterator();
+    }
+
+    private class RandomizedIterator implements Iterator<String> {
+
+        private final long[] copiedOffsets;
+        private int copiedLastIndex;
+        private final int expectedGeneration;
+
+        RandomizedIterator() {
+            copiedOffsets = new long[lastIndex + 1];
+            System.arraycopy(offsets, 0, copiedOffsets, 0, lastIndex + 1);
+            copiedLastIndex = lastIndex;
+            expectedGeneration = generation;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return copiedLastIndex >= 0;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more item.");
+            }
+            if (generation != expectedGeneration) {
+                throw new ConcurrentModificationException("The arena was compacted.");
+            }
+            int i = StdRandom.uniform(copiedLastIndex + 1);
+            long offset = copiedOffsets[i];
+            copiedOffsets[i] = copiedOffsets[copiedLastIndex--];
+            return read(offset);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Remove unsupported. ");
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[");
+        for (String item : this) {
+            sb.append(item);
+            sb.append(",");
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+
+    public static void main(String[] args) {
+
+        OffHeapRandomizedQueue randomizedQueue = new OffHeapRandomizedQueue();
+        StdOut.println(randomizedQueue.size());
+        StdOut.println(randomizedQueue.isEmpty());
+        randomizedQueue.enqueue("A");
+        randomizedQueue.enqueue("BB");
+        randomizedQueue.enqueue("CCC");
+        randomizedQueue.enqueue("DDDD");
+        randomizedQueue.enqueue("EEEEE");
+        StdOut.println(randomizedQueue);
+        StdOut.println("The total size = " + randomizedQueue.size());
+        StdOut.println(randomizedQueue.dequeue());
+        StdOut.println(randomizedQueue.dequeue());
+        StdOut.println(randomizedQueue.dequeue());
+        StdOut.println(randomizedQueue);
+        StdOut.println("The total size = " + randomizedQueue.size());
+    }
+}
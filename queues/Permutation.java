@@ -11,7 +11,7 @@ import edu.princeton.cs.algs4.StdOut;
 public class Permutation {
     public static void main(String[] args) {
         final int k = Integer.parseInt(args[0]);
-        RandomizedQueue<String> randomizedQueue = new RandomizedQueue<>();
+        OffHeapRandomizedQueue randomizedQueue = new OffHeapRandomizedQueue();
         while (!StdIn.isEmpty()) {
             String s = StdIn.readString();
             randomizedQueue.enqueue(s);
@@ -14,6 +14,10 @@ import edu.princeton.cs.algs4.StdRandom;
 
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.stream.StreamSupport;
 
 /**
  * The {@code RandomizedQueue} class represents a first-in-first-out (FIFO)
@@ -173,6 +177,90 @@ public class RandomizedQueue<Item> implements Iterable<Item> {
         }
     }
 
+    /**
+     * Returns an independent sized spliterator over items in random order.
+     * The spliterator works on a copy of the array; splitting halves the
+     * index range, and each range is permuted on the fly as it is traversed,
+     * so a parallel stream never shuffles the whole copy up front.
+     *
+     * @return an independent spliterator over items in random order
+     */
+    @Override
+    public Spliterator<Item> spliterator() {
+        Item[] array = (Item[]) new Object[lastIndex + 1];
+        System.arraycopy(a, 0, array, 0, lastIndex + 1);
+        return new RandomizedSpliterator(array, 0, lastIndex + 1);
+    }
+
+    private class RandomizedSpliterator implements Spliterator<Item> {
+
+        private final Item[] copiedArray;
+        private int lo;
+        private final int hi;
+
+        RandomizedSpliterator(Item[] copiedArray, int lo, int hi) {
+            this.copiedArray = copiedArray;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        /**
+         * Swaps a random item of the remaining range into position lo and
+         * returns it; one step of a Fisher-Yates shuffle of this range.
+         */
+        private Item nextRandom(ThreadLocalRandom random) {
+            int i = lo + random.nextInt(hi - lo);
+            Item item = copiedArray[i];
+            copiedArray[i] = copiedArray[lo];
+            copiedArray[lo++] = null;
+            return item;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Item> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            if (lo >= hi) {
+                return false;
+            }
+            action.accept(nextRandom(ThreadLocalRandom.current()));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Item> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (lo < hi) {
+                action.accept(nextRandom(random));
+            }
+        }
+
+        @Override
+        public Spliterator<Item> trySplit() {
+            int mid = (lo + hi) >>> 1;
+            if (mid <= lo) {
+                return null;
+            }
+            Spliterator<Item> prefix = new RandomizedSpliterator(copiedArray, lo, mid);
+            lo = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return hi - lo;
+        }
+
+        @Override
+        public int characteristics() {
+            return SIZED | SUBSIZED | NONNULL;
+        }
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -202,5 +290,10 @@ public class RandomizedQueue<Item> implements Iterable<Item> {
         StdOut.println(randomizedQueue.dequeue());
         StdOut.println(randomizedQueue);
         StdOut.println("The total size = " + randomizedQueue.size());
+        for (int i = 0; i < 100; i++) {
+            randomizedQueue.enqueue(i);
+        }
+        StdOut.println("Parallel sum = " + StreamSupport.stream(randomizedQueue.spliterator(), true)
+                                                        .mapToInt(Integer::intValue).sum());
     }
 }